@@ -0,0 +1,283 @@
+package com.example.siddhantagrawal.check_discuss;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.AbsListView;
+import android.widget.ListView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test for the whole feed to screen pipeline, run against
+ * {@link LocalFeedServer} so it does not depend on the real hosts.
+ *
+ * Launches MainActivity on a generated feed, scrolls through a fixed script
+ * and records frame times while the list is moving, time to first row, memory and file cache hit
+ * ratios, peak Java and native heap and total PSS. Bitmap pixels live in
+ * native memory from Android 8.0, so the native heap and PSS are gated as
+ * well as the Java heap. The run fails when a result is past its limit, so
+ * it can gate changes. Limits can be overridden with instrumentation
+ * arguments, for example
+ * -e maxJankRatio 0.1 -e maxFirstRowMs 3000.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedLoadTest {
+
+    private static final String TAG = "FeedLoadTest";
+    // A frame slower than this missed vsync on a 60Hz screen
+    private static final long JANK_FRAME_NS = 17000000;
+
+    private LocalFeedServer server;
+    private Instrumentation instrumentation;
+    private Bundle arguments;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        arguments = InstrumentationRegistry.getArguments();
+        // Start every run cold
+        new FileCache(InstrumentationRegistry.getTargetContext()).clear();
+        server = new LocalFeedServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void fastNetwork_flingThroughFeed() throws Exception {
+        server.rows = 500;
+        server.latencyMs = 20;
+        server.latencyJitterMs = 20;
+        Result result = run(new int[]{499, 0, 250, 100, 400});
+        assertWithinLimits(result);
+    }
+
+    @Test
+    public void slowFlakyNetwork_scrollBackAndForth() throws Exception {
+        server.rows = 300;
+        server.latencyMs = 400;
+        server.latencyJitterMs = 600;
+        server.bandwidth = 8 * 1024;
+        server.errorRate = 0.1;
+        server.truncationRate = 0.05;
+        Result result = run(new int[]{40, 0, 40, 80, 40, 150, 0});
+        assertWithinLimits(result);
+    }
+
+    // Launches the app on the local feed and scrolls to each position in turn
+    private Result run(int[] script) throws Exception {
+        server.start();
+        final Result result = new Result();
+        final FrameRecorder recorder = new FrameRecorder(result);
+
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.setClassName(instrumentation.getTargetContext(),
+                MainActivity.class.getName());
+        intent.putExtra(MainActivity.FEED_URL, server.getFeedUrl());
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        long launched = SystemClock.elapsedRealtime();
+        final MainActivity activity = (MainActivity) instrumentation
+                .startActivitySync(intent);
+        try {
+            while (!hasRows(activity)) {
+                assertTrue("No rows shown", SystemClock.elapsedRealtime()
+                        - launched < getLimit("feedTimeoutMs", 30000));
+                SystemClock.sleep(10);
+            }
+            result.firstRowMs = SystemClock.elapsedRealtime() - launched;
+
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    activity.listview.setOnScrollListener(recorder);
+                    Choreographer.getInstance().postFrameCallback(recorder);
+                }
+            });
+            for (final int position : script) {
+                instrumentation.runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        activity.listview.smoothScrollToPosition(position);
+                    }
+                });
+                // Let the scroll settle and images arrive before the next step
+                SystemClock.sleep((long) getLimit("stepMs", 3000));
+                // Too slow to read every frame, once per step is enough
+                Debug.MemoryInfo memoryInfo = new Debug.MemoryInfo();
+                Debug.getMemoryInfo(memoryInfo);
+                result.peakPssKb = Math.max(result.peakPssKb, memoryInfo.getTotalPss());
+            }
+            recorder.stop();
+            instrumentation.waitForIdleSync();
+
+            final ImageLoader imageLoader = activity.adapter.imageLoader;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    MemoryCache cache = imageLoader.memoryCache;
+                    result.hitRatio = ratio(cache.getHitCount(), cache.getMissCount());
+                    result.fileHitRatio = ratio(imageLoader.getFileCacheHitCount(),
+                            imageLoader.getFileCacheMissCount());
+                }
+            });
+            result.requests = server.getRequestCount();
+        } finally {
+            activity.finish();
+        }
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private static double ratio(long hits, long misses) {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    private boolean hasRows(final MainActivity activity) {
+        final boolean[] shown = new boolean[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ListView listview = activity.listview;
+                shown[0] = listview != null && listview.getChildCount() > 0;
+            }
+        });
+        return shown[0];
+    }
+
+    private void assertWithinLimits(Result result) {
+        assertTrue("Time to first row " + result.firstRowMs + "ms",
+                result.firstRowMs <= getLimit("maxFirstRowMs", 5000));
+        assertTrue("Jank ratio " + result.getJankRatio(),
+                result.getJankRatio() <= getLimit("maxJankRatio", 0.2));
+        assertTrue("90th percentile frame " + result.getFrameMs(90) + "ms",
+                result.getFrameMs(90) <= getLimit("maxP90FrameMs", 32));
+        assertTrue("Cache hit ratio " + result.hitRatio,
+                result.hitRatio >= getLimit("minHitRatio", 0.1));
+        assertTrue("File cache hit ratio " + result.fileHitRatio,
+                result.fileHitRatio >= getLimit("minFileHitRatio", 0.0));
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        assertTrue("Peak heap " + result.peakHeap + " bytes",
+                result.peakHeap <= maxHeap * getLimit("maxHeapShare", 0.8));
+        assertTrue("Peak native heap " + result.peakNativeHeap + " bytes",
+                result.peakNativeHeap <= getLimit("maxNativeHeapMb", 256) * 1024 * 1024);
+        assertTrue("Peak PSS " + result.peakPssKb + "KB",
+                result.peakPssKb <= getLimit("maxPssMb", 384) * 1024);
+    }
+
+    // Every limit is read as a double, so -e maxPssMb 300.5 works too
+    private double getLimit(String name, double fallback) {
+        String value = arguments.getString(name);
+        return value == null ? fallback : Double.parseDouble(value);
+    }
+
+    // Collects heap use every frame and frame durations while the list scrolls.
+    // Idle frames after a scroll settles would only water down the jank figures.
+    private static class FrameRecorder implements Choreographer.FrameCallback,
+            AbsListView.OnScrollListener {
+        private final Result result;
+        private long lastFrameNs = 0;
+        private boolean scrolling = false;
+        private volatile boolean stopped = false;
+
+        FrameRecorder(Result result) {
+            this.result = result;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (stopped)
+                return;
+            if (scrolling) {
+                if (lastFrameNs != 0)
+                    result.addFrame(frameTimeNanos - lastFrameNs);
+                lastFrameNs = frameTimeNanos;
+            } else {
+                lastFrameNs = 0;
+            }
+            Runtime runtime = Runtime.getRuntime();
+            result.peakHeap = Math.max(result.peakHeap,
+                    runtime.totalMemory() - runtime.freeMemory());
+            result.peakNativeHeap = Math.max(result.peakNativeHeap,
+                    Debug.getNativeHeapAllocatedSize());
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            scrolling = scrollState != SCROLL_STATE_IDLE;
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem,
+                             int visibleItemCount, int totalItemCount) {
+        }
+    }
+
+    private static class Result {
+        private final List<Long> frames = new ArrayList<Long>();
+        long firstRowMs;
+        double hitRatio;
+        double fileHitRatio;
+        long peakHeap;
+        long peakNativeHeap;
+        long peakPssKb;
+        int requests;
+
+        synchronized void addFrame(long ns) {
+            frames.add(ns);
+        }
+
+        synchronized double getJankRatio() {
+            if (frames.isEmpty())
+                return 0;
+            int jank = 0;
+            for (long ns : frames)
+                if (ns > JANK_FRAME_NS)
+                    jank++;
+            return jank / (double) frames.size();
+        }
+
+        synchronized long getFrameMs(int percentile) {
+            if (frames.isEmpty())
+                return 0;
+            List<Long> sorted = new ArrayList<Long>(frames);
+            Collections.sort(sorted);
+            int index = Math.min(sorted.size() - 1, sorted.size() * percentile / 100);
+            return sorted.get(index) / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return "frames=" + frames.size() + " jank=" + getJankRatio()
+                    + " p90=" + getFrameMs(90) + "ms p99=" + getFrameMs(99)
+                    + "ms firstRow=" + firstRowMs + "ms hitRatio=" + hitRatio
+                    + " fileHitRatio=" + fileHitRatio + " peakHeap=" + peakHeap
+                    + " peakNativeHeap=" + peakNativeHeap + " peakPss="
+                    + peakPssKb + "KB requests=" + requests;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.siddhantagrawal.check_discuss;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Embedded HTTP stand-in for the feed host and the flag image host.
+ *
+ * Serves /feed.json with a generated feed and /flag/N.png with generated
+ * images. Every response is delayed, throttled and possibly failed or cut
+ * short according to the settings. The outcome of a path only depends on the
+ * seed and the path, so runs are repeatable whatever order the app asks in.
+ *
+ * The server runs in the app's process, so its images count towards the
+ * memory the load test gates on. They are all built in start(), before the
+ * app is launched, so encoding them does not compete with the measured run.
+ */
+public class LocalFeedServer {
+
+    // Settings, change before start()
+    public int rows = 500;
+    public long seed = 42;
+    public long latencyMs = 0;
+    public long latencyJitterMs = 0;
+    // Bytes per second per connection, 0 for unlimited
+    public long bandwidth = 0;
+    public double errorRate = 0;
+    public double truncationRate = 0;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private final Map<Integer, byte[]> images = new HashMap<Integer, byte[]>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public void start() throws IOException {
+        for (int i = 1; i <= rows; i++)
+            image(i);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                handle(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // Closed by shutdown()
+                    }
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executor.shutdownNow();
+    }
+
+    public String getFeedUrl() {
+        return getBaseUrl() + "/feed.json";
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    private String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "iso-8859-1"));
+            String requestLine = reader.readLine();
+            if (requestLine == null)
+                return;
+            // Skip the headers, no request here has a body we need
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+            }
+            requests.incrementAndGet();
+            String path = requestLine.split(" ")[1];
+            Random random = new Random(seed ^ path.hashCode());
+
+            long delay = latencyMs;
+            if (latencyJitterMs > 0)
+                delay += (long) (random.nextDouble() * latencyJitterMs);
+            Thread.sleep(delay);
+
+            OutputStream os = socket.getOutputStream();
+            byte[] body = null;
+            String type = null;
+            if (path.equals("/feed.json")) {
+                body = feed().getBytes("UTF-8");
+                type = "application/json";
+            } else if (path.startsWith("/flag/")) {
+                // The feed itself is never failed, only the images
+                if (random.nextDouble() < errorRate) {
+                    writeHeaders(os, "500 Internal Server Error", "text/plain", 0);
+                    return;
+                }
+                body = image(Integer.parseInt(path.substring(6, path.indexOf('.'))));
+                type = "image/png";
+            }
+            if (body == null) {
+                writeHeaders(os, "404 Not Found", "text/plain", 0);
+                return;
+            }
+
+            int length = body.length;
+            if (type.equals("image/png") && random.nextDouble() < truncationRate)
+                length /= 2;
+            writeHeaders(os, "200 OK", type, body.length);
+            writeThrottled(os, body, length);
+        } catch (InterruptedException e) {
+            // Shutting down
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void writeHeaders(OutputStream os, String status, String type,
+                              int length) throws IOException {
+        String headers = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + type + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        os.write(headers.getBytes("iso-8859-1"));
+        os.flush();
+    }
+
+    // Writes the first length bytes of body no faster than the bandwidth
+    private void writeThrottled(OutputStream os, byte[] body, int length)
+            throws IOException, InterruptedException {
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, length - offset);
+            os.write(body, offset, count);
+            os.flush();
+            if (bandwidth > 0)
+                Thread.sleep(count * 1000L / bandwidth);
+        }
+    }
+
+    private String feed() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 1; i <= rows; i++) {
+            JSONObject item = new JSONObject();
+            item.put("rank", i);
+            item.put("country", "Country " + i);
+            item.put("population", String.valueOf(1000000L * (rows - i + 1)));
+            item.put("flag", getBaseUrl() + "/flag/" + i + ".png");
+            array.put(item);
+        }
+        JSONObject json = new JSONObject();
+        json.put("worldpopulation", array);
+        return json.toString();
+    }
+
+    // Each flag is a differently coloured image, built once in start() and kept
+    private byte[] image(int index) {
+        synchronized (images) {
+            byte[] bytes = images.get(index);
+            if (bytes != null)
+                return bytes;
+            Random random = new Random(seed + index);
+            Bitmap bitmap = Bitmap.createBitmap(160, 100, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.rgb(random.nextInt(256),
+                    random.nextInt(256), random.nextInt(256)));
+            // Some noise so the png is not trivially small
+            for (int i = 0; i < 2000; i++)
+                bitmap.setPixel(random.nextInt(160), random.nextInt(100),
+                        random.nextInt());
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
+            bitmap.recycle();
+            bytes = os.toByteArray();
+            images.put(index, bytes);
+            return bytes;
+        }
+    }
+}
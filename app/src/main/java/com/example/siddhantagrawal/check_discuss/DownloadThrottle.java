@@ -0,0 +1,113 @@
+package com.example.siddhantagrawal.check_discuss;
+
+/**
+ * Decides how many image downloads may run at once, and holds back
+ * downloads past that limit until one finishes.
+ *
+ * Uses AIMD: the limit grows by one after a window of healthy downloads that
+ * also raised throughput, and holds when throughput stayed flat, as more
+ * downloads on a full link only make each one slower. It is halved when a
+ * download times out or breaks, latency inflates well beyond the best seen
+ * lately, or throughput drops compared to the previous window. A window
+ * closes once as many downloads as the current limit have completed. The best
+ * latency only counts this window and the last one, so a single tiny response
+ * or a move to a slower network is forgotten quickly.
+ */
+public class DownloadThrottle {
+
+    // Average latency this many times the recent best means the link is queueing
+    private static final int LATENCY_TOLERANCE = 3;
+    // Ignore latency inflation below this, it is just noise on fast links
+    private static final long LATENCY_SLACK_MS = 200;
+    // Throughput falling under this share of the last window means congestion
+    private static final double THROUGHPUT_DROP = 0.8;
+    // Throughput must rise past this share of the last window to grow the limit
+    private static final double THROUGHPUT_GAIN = 1.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private int limit;
+    private int running = 0;
+
+    private int windowCount = 0;
+    private long windowBytes = 0;
+    private long windowLatencyMs = 0;
+    private long windowStartMs = -1;
+    private double lastThroughput = 0;
+    private long windowBestMs = Long.MAX_VALUE;
+    private long lastBestMs = Long.MAX_VALUE;
+
+    public DownloadThrottle(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        limit = this.minLimit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    // Blocks until a download may start under the current limit
+    public synchronized void acquire() throws InterruptedException {
+        while (running >= limit)
+            wait();
+        running++;
+    }
+
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    // Called with the time a download was started, when it has finished
+    public void onSuccess(long startMs, long bytes) {
+        onSuccess(startMs, System.currentTimeMillis(), bytes);
+    }
+
+    synchronized void onSuccess(long startMs, long endMs, long bytes) {
+        long latency = Math.max(0, endMs - startMs);
+        if (latency < windowBestMs)
+            windowBestMs = latency;
+        if (windowStartMs < 0 || startMs < windowStartMs)
+            windowStartMs = startMs;
+        windowCount++;
+        windowBytes += bytes;
+        windowLatencyMs += latency;
+        if (windowCount < limit)
+            return;
+
+        long elapsed = Math.max(1, endMs - windowStartMs);
+        double throughput = windowBytes * 1000.0 / elapsed;
+        long avgLatency = windowLatencyMs / windowCount;
+        long bestLatency = Math.min(lastBestMs, windowBestMs);
+        boolean queueing = avgLatency > bestLatency * LATENCY_TOLERANCE
+                && avgLatency - bestLatency > LATENCY_SLACK_MS;
+        boolean slower = throughput < lastThroughput * THROUGHPUT_DROP;
+        boolean faster = throughput >= lastThroughput * THROUGHPUT_GAIN;
+        if (queueing || slower)
+            decrease();
+        else if (faster && limit < maxLimit)
+            limit++;
+        lastThroughput = throughput;
+        lastBestMs = windowBestMs;
+        resetWindow();
+    }
+
+    // Only for timeouts and broken transfers, not for errors the server sent
+    public synchronized void onFailure() {
+        decrease();
+        resetWindow();
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit / 2);
+    }
+
+    private void resetWindow() {
+        windowCount = 0;
+        windowBytes = 0;
+        windowLatencyMs = 0;
+        windowStartMs = -1;
+        windowBestMs = Long.MAX_VALUE;
+    }
+}
@@ -5,6 +5,7 @@ package com.example.siddhantagrawal.check_discuss;
  */
 
 import java.io.File;
+import java.io.IOException;
 import android.content.Context;
 
 public class FileCache {
@@ -32,6 +33,11 @@ public class FileCache {
         return f;
     }
 
+    // Downloads are written here first and only moved to getFile once complete
+    public File getTempFile(String url) throws IOException {
+        return File.createTempFile("img" + url.hashCode(), ".part", cacheDir);
+    }
+
     public void clear() {
         File[] files = cacheDir.listFiles();
         if (files == null)
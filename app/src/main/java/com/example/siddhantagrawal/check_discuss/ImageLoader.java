@@ -12,16 +12,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Handler;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.view.Choreographer;
 import android.widget.ImageView;
 
 public class ImageLoader {
@@ -30,17 +39,48 @@ public class ImageLoader {
     FileCache fileCache;
     private Map<ImageView, String> imageViews = Collections
             .synchronizedMap(new WeakHashMap<ImageView, String>());
-    ExecutorService executorService;
+    // Downloads mostly wait on the network, decoding keeps a core busy
+    ExecutorService networkExecutor;
+    ExecutorService decodeExecutor;
+    DownloadThrottle throttle;
     // Handler to display images in UI thread
     Handler handler = new Handler();
+    // Finished images wait here and are shown in one batch per frame
+    private final Queue<BitmapDisplayer> displayQueue = new ConcurrentLinkedQueue<BitmapDisplayer>();
+    private final AtomicBoolean displayScheduled = new AtomicBoolean(false);
+    // Left over when a drain ran out of budget, only used on the UI thread
+    private Map<ImageView, BitmapDisplayer> displayPending = new LinkedHashMap<ImageView, BitmapDisplayer>();
+    // Null below Jelly Bean, where a single handler post is used instead
+    private FrameDrainer frameDrainer;
+    private final Runnable displayDrainer = new Runnable() {
+        @Override
+        public void run() {
+            drainDisplayQueue();
+        }
+    };
+
+    static final int MIN_DOWNLOADS = 2;
+    static final int MAX_DOWNLOADS = 16;
+    // UI thread time one batch may take, the rest waits for the next frame
+    static final long DISPLAY_BUDGET_NS = 4000000;
 
     public ImageLoader(Context context) {
         fileCache = new FileCache(context);
-        executorService = Executors.newFixedThreadPool(5);
+        throttle = new DownloadThrottle(MIN_DOWNLOADS, MAX_DOWNLOADS);
+        // Threads for the most downloads allowed, the throttle holds back the rest
+        networkExecutor = Executors.newFixedThreadPool(MAX_DOWNLOADS);
+        int cores = Runtime.getRuntime().availableProcessors();
+        decodeExecutor = Executors.newFixedThreadPool(Math.max(1, cores));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            frameDrainer = new FrameDrainer();
     }
 
     final int stub_id = R.drawable.temp_img;
 
+    // Images found on disk or not when queued, only counted on the UI thread
+    private long fileCacheHits = 0;
+    private long fileCacheMisses = 0;
+
     public void DisplayImage(String url, ImageView imageView) {
         imageViews.put(imageView, url);
         Bitmap bitmap = memoryCache.get(url);
@@ -54,37 +94,67 @@ public class ImageLoader {
 
     private void queuePhoto(String url, ImageView imageView) {
         PhotoToLoad p = new PhotoToLoad(url, imageView);
-        executorService.submit(new PhotosLoader(p));
+        // Images already on disk skip the network stage
+        File f = fileCache.getFile(url);
+        if (f.exists()) {
+            fileCacheHits++;
+            decodeExecutor.submit(new PhotosDecoder(p, f));
+        } else {
+            fileCacheMisses++;
+            networkExecutor.submit(new PhotosLoader(p));
+        }
     }
 
-    private Bitmap getBitmap(String url) {
-        File f = fileCache.getFile(url);
+    public long getFileCacheHitCount() {
+        return fileCacheHits;
+    }
 
-        Bitmap b = decodeFile(f);
-        if (b != null)
-            return b;
+    public long getFileCacheMissCount() {
+        return fileCacheMisses;
+    }
 
-        // Download Images from the Internet
+    // Downloads the image into the file cache, returns false on failure
+    private boolean download(String url, File f) {
+        long start = System.currentTimeMillis();
+        File tmp = null;
         try {
-            Bitmap bitmap = null;
             URL imageUrl = new URL(url);
             HttpURLConnection conn = (HttpURLConnection) imageUrl
                     .openConnection();
             conn.setConnectTimeout(30000);
             conn.setReadTimeout(30000);
             conn.setInstanceFollowRedirects(true);
+            // Error responses say nothing about congestion, so no back off
+            int code = conn.getResponseCode();
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                conn.disconnect();
+                return false;
+            }
             InputStream is = conn.getInputStream();
-            OutputStream os = new FileOutputStream(f);
+            tmp = fileCache.getTempFile(url);
+            OutputStream os = new FileOutputStream(tmp);
             Utils.CopyStream(is, os);
             os.close();
             conn.disconnect();
-            bitmap = decodeFile(f);
-            return bitmap;
+            // CopyStream hides read errors, so catch cut off bodies here
+            int length = conn.getContentLength();
+            if (length >= 0 && tmp.length() != length)
+                throw new IOException("Truncated image " + tmp.length() + "/" + length);
+            throttle.onSuccess(start, tmp.length());
+            // Only a complete file ever shows up in the cache
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                return false;
+            }
+            return true;
         } catch (Throwable ex) {
             ex.printStackTrace();
-            if (ex instanceof OutOfMemoryError)
-                memoryCache.clear();
-            return null;
+            if (tmp != null)
+                tmp.delete();
+            // Only timeouts and broken transfers point at a congested link
+            if (ex instanceof IOException && !(ex instanceof MalformedURLException))
+                throttle.onFailure();
+            return false;
         }
     }
 
@@ -130,6 +200,8 @@ public class ImageLoader {
     private class PhotoToLoad {
         public String url;
         public ImageView imageView;
+        // Set once a cached file failed to decode and was fetched again
+        public boolean refetched = false;
 
         public PhotoToLoad(String u, ImageView i) {
             url = u;
@@ -137,6 +209,7 @@ public class ImageLoader {
         }
     }
 
+    // Network stage, makes sure the image is in the file cache
     class PhotosLoader implements Runnable {
         PhotoToLoad photoToLoad;
 
@@ -149,14 +222,66 @@ public class ImageLoader {
             try {
                 if (imageViewReused(photoToLoad))
                     return;
-                Bitmap bmp = getBitmap(photoToLoad.url);
+                File f = fileCache.getFile(photoToLoad.url);
+                if (!f.exists()) {
+                    boolean loaded;
+                    throttle.acquire();
+                    try {
+                        // The row may have scrolled away while waiting for a slot
+                        if (imageViewReused(photoToLoad))
+                            return;
+                        loaded = download(photoToLoad.url, f);
+                    } finally {
+                        throttle.release();
+                    }
+                    if (!loaded) {
+                        // Nothing to decode, show the stub without the decode stage
+                        displayQueue.offer(new BitmapDisplayer(null, photoToLoad));
+                        scheduleDisplay();
+                        return;
+                    }
+                }
+                decodeExecutor.submit(new PhotosDecoder(photoToLoad, f));
+            } catch (InterruptedException e) {
+                // Shut down while waiting for a download slot
+            } catch (Throwable th) {
+                th.printStackTrace();
+            }
+        }
+    }
+
+    // Decode stage, turns the cached file into a bitmap
+    class PhotosDecoder implements Runnable {
+        PhotoToLoad photoToLoad;
+        File file;
+
+        PhotosDecoder(PhotoToLoad photoToLoad, File file) {
+            this.photoToLoad = photoToLoad;
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (imageViewReused(photoToLoad))
+                    return;
+                Bitmap bmp = decodeFile(file);
+                if (bmp == null && file.exists() && !photoToLoad.refetched) {
+                    // Corrupt or cut short on disk, download it once more
+                    file.delete();
+                    photoToLoad.refetched = true;
+                    networkExecutor.submit(new PhotosLoader(photoToLoad));
+                    return;
+                }
                 memoryCache.put(photoToLoad.url, bmp);
                 if (imageViewReused(photoToLoad))
                     return;
-                BitmapDisplayer bd = new BitmapDisplayer(bmp, photoToLoad);
-                handler.post(bd);
+                displayQueue.offer(new BitmapDisplayer(bmp, photoToLoad));
+                scheduleDisplay();
             } catch (Throwable th) {
                 th.printStackTrace();
+                if (th instanceof OutOfMemoryError)
+                    memoryCache.clear();
             }
         }
     }
@@ -168,6 +293,60 @@ public class ImageLoader {
         return false;
     }
 
+    // Asks for one drain of the display queue, however many images are waiting
+    private void scheduleDisplay() {
+        if (!displayScheduled.compareAndSet(false, true))
+            return;
+        if (frameDrainer != null)
+            frameDrainer.post();
+        else
+            handler.post(displayDrainer);
+    }
+
+    // Runs on the UI thread, shows waiting images until the budget is spent
+    private void drainDisplayQueue() {
+        // Cleared first so images finishing during the drain schedule another
+        displayScheduled.set(false);
+        // Only the newest result per view is shown, so each is set once.
+        // Leftovers go first and anything newer from the queue replaces them.
+        Map<ImageView, BitmapDisplayer> batch = displayPending;
+        displayPending = new LinkedHashMap<ImageView, BitmapDisplayer>();
+        BitmapDisplayer bd;
+        while ((bd = displayQueue.poll()) != null) {
+            if (!imageViewReused(bd.photoToLoad))
+                batch.put(bd.photoToLoad.imageView, bd);
+        }
+
+        long deadline = System.nanoTime() + DISPLAY_BUDGET_NS;
+        Iterator<BitmapDisplayer> iter = batch.values().iterator();
+        while (iter.hasNext()) {
+            iter.next().run();
+            if (System.nanoTime() > deadline)
+                break;
+        }
+        while (iter.hasNext()) {
+            bd = iter.next();
+            displayPending.put(bd.photoToLoad.imageView, bd);
+        }
+        if (!displayPending.isEmpty())
+            scheduleDisplay();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameDrainer implements Choreographer.FrameCallback {
+        // Created on the UI thread, so this is the UI thread's Choreographer
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        void post() {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drainDisplayQueue();
+        }
+    }
+
     // Used to display bitmap in the UI thread
     class BitmapDisplayer implements Runnable {
         Bitmap bitmap;
@@ -193,4 +372,10 @@ public class ImageLoader {
         fileCache.clear();
     }
 
+    // Stops the pools, downloads still waiting or running are dropped
+    public void shutdown() {
+        networkExecutor.shutdownNow();
+        decodeExecutor.shutdownNow();
+    }
+
 }
\ No newline at end of file
@@ -24,6 +24,9 @@ public class MainActivity extends Activity {
     static String COUNTRY = "country";
     static String POPULATION = "population";
     static String FLAG = "flag";
+    // Optional intent extra pointing the feed at another server
+    static String FEED_URL = "feed_url";
+    static final String DEFAULT_FEED_URL = "http://www.androidbegin.com/tutorial/jsonparsetutorial.txt";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -34,6 +37,14 @@ public class MainActivity extends Activity {
         new DownloadJSON().execute();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Stop the image threads, a new activity starts its own loader
+        if (adapter != null)
+            adapter.imageLoader.shutdown();
+    }
+
     // DownloadJSON AsyncTask
     private class DownloadJSON extends AsyncTask<Void, Void, Void> {
 
@@ -56,8 +67,10 @@ public class MainActivity extends Activity {
             // Create an array
             arraylist = new ArrayList<HashMap<String, String>>();
             // Retrieve JSON Objects from the given URL address
-            jsonobject = JSONfunctions
-                    .getJSONfromURL("http://www.androidbegin.com/tutorial/jsonparsetutorial.txt");
+            String url = getIntent().getStringExtra(FEED_URL);
+            if (url == null)
+                url = DEFAULT_FEED_URL;
+            jsonobject = JSONfunctions.getJSONfromURL(url);
 
             try {
                 // Locate the array name in JSON
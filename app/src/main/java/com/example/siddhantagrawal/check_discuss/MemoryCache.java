@@ -25,6 +25,10 @@ public class MemoryCache {
     // Max memory in bytes
     private long limit = 1000000;
 
+    // Lookups that found or missed a bitmap
+    private long hits = 0;
+    private long misses = 0;
+
     public MemoryCache() {
         // Use 25% of available heap size
         setLimit(Runtime.getRuntime().maxMemory() / 4);
@@ -37,9 +41,12 @@ public class MemoryCache {
 
     public Bitmap get(String id) {
         try {
-            if (!cache.containsKey(id))
-                return null;
-            return cache.get(id);
+            Bitmap bitmap = cache.get(id);
+            if (bitmap == null)
+                misses++;
+            else
+                hits++;
+            return bitmap;
         } catch (NullPointerException ex) {
             ex.printStackTrace();
             return null;
@@ -83,6 +90,14 @@ public class MemoryCache {
         }
     }
 
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
     long getSizeInBytes(Bitmap bitmap) {
         if (bitmap == null)
             return 0;
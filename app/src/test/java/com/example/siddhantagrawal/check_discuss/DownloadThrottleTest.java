@@ -0,0 +1,96 @@
+package com.example.siddhantagrawal.check_discuss;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the AIMD download limit.
+ */
+public class DownloadThrottleTest {
+
+    private long now = 0;
+
+    // Completes a full window of downloads that all ran side by side
+    private void window(DownloadThrottle throttle, long latencyMs, long bytes) {
+        int count = throttle.getLimit();
+        for (int i = 0; i < count; i++)
+            throttle.onSuccess(now, now + latencyMs, bytes);
+        now += latencyMs;
+    }
+
+    @Test
+    public void limit_growsByOnePerFullWindow() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(2, 16);
+        assertEquals(2, throttle.getLimit());
+
+        throttle.onSuccess(0, 100, 1000);
+        assertEquals(2, throttle.getLimit());
+        throttle.onSuccess(0, 100, 1000);
+        assertEquals(3, throttle.getLimit());
+
+        now = 100;
+        window(throttle, 100, 1000);
+        assertEquals(4, throttle.getLimit());
+    }
+
+    @Test
+    public void limit_halvesOnFailure() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(1, 16);
+        for (int i = 0; i < 7; i++)
+            window(throttle, 100, 1000);
+        assertEquals(8, throttle.getLimit());
+
+        throttle.onFailure();
+        assertEquals(4, throttle.getLimit());
+    }
+
+    @Test
+    public void limit_halvesOnLatencyInflation() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(1, 16);
+        for (int i = 0; i < 3; i++)
+            window(throttle, 100, 1000);
+        assertEquals(4, throttle.getLimit());
+
+        // Ten times slower but ten times larger, so throughput holds up
+        window(throttle, 1000, 10000);
+        assertEquals(2, throttle.getLimit());
+    }
+
+    @Test
+    public void limit_halvesOnThroughputDrop() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(1, 16);
+        for (int i = 0; i < 3; i++)
+            window(throttle, 100, 1000);
+        assertEquals(4, throttle.getLimit());
+
+        window(throttle, 100, 100);
+        assertEquals(2, throttle.getLimit());
+    }
+
+    @Test
+    public void limit_holdsOnSaturatedLink() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(2, 16);
+        // 10KB images sharing an 8KB/s link with a 300ms round trip
+        for (int i = 0; i < 20; i++) {
+            int count = throttle.getLimit();
+            window(throttle, 300 + count * 10 * 1000 / 8, 10 * 1024);
+        }
+        assertEquals(3, throttle.getLimit());
+    }
+
+    @Test
+    public void limit_staysWithinMinAndMax() throws Exception {
+        DownloadThrottle throttle = new DownloadThrottle(2, 3);
+        throttle.onFailure();
+        assertEquals(2, throttle.getLimit());
+
+        for (int i = 0; i < 5; i++)
+            window(throttle, 100, 1000);
+        assertEquals(3, throttle.getLimit());
+
+        throttle.onFailure();
+        throttle.onFailure();
+        assertEquals(2, throttle.getLimit());
+    }
+}